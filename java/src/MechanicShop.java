@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -39,7 +40,52 @@ import java.text.SimpleDateFormat;
 public class MechanicShop{
 	//reference to physical database connection
 	private Connection _connection = null;
+	//connection settings, kept so the warm-up can open its own connection
+	private String _url = null;
+	private String _user = null;
+	private String _passwd = null;
+	//streaming bill distributions, built by the warm-up or on first use
+	private BillingSketches _billingStats = null;
+	//open service requests and their assigned mechanics, built the same way
+	private WorkQueue _workQueue = null;
+	//only one build of each at a time; these are not the lock on this object
+	private final Object _billingBuild = new Object();
+	private final Object _queueBuild = new Object();
+	//changes made before the structures above were published
+	private final List<BillingSketches.ClosedBill> _pendingBills = new ArrayList<BillingSketches.ClosedBill>();
+	private final Map<Integer, Integer> _pendingMechanics = new LinkedHashMap<Integer, Integer>();
+	//the menu's queries, prepared on _connection; also the lock for running them
+	private final Map<String, PreparedStatement> _prepared = new HashMap<String, PreparedStatement>();
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+	//queries issued by the menu as prepared statements, shared with warmUp
+	//so it always prepares the same SQL
+	static final String MAX_CUSTOMER_ID = "SELECT MAX(id) FROM Customer";
+	static final String MAX_MECHANIC_ID = "SELECT MAX(id) FROM Mechanic";
+	static final String MAX_SERVICE_REQUEST_ID = "SELECT MAX(rid) FROM Service_Request";
+	static final String MAX_CLOSED_REQUEST_ID = "SELECT MAX(wid) FROM Closed_Request";
+	static final String CUSTOMER_BY_ID = "SELECT * FROM Customer WHERE id = ?";
+	static final String MECHANIC_BY_ID = "SELECT * FROM Mechanic WHERE id = ?";
+	static final String CAR_BY_VIN = "SELECT * FROM Car WHERE vin = ?";
+	static final String SERVICE_REQUEST_BY_ID = "SELECT * FROM Service_Request WHERE rid = ?";
+	static final String SERVICE_REQUEST_MAKE_BY_ID = "SELECT S.rid, Car.make FROM Service_Request S, Car WHERE S.car_vin = Car.vin AND S.rid = ?";
+	static final String CLOSED_REQUEST_BY_RID = "SELECT * FROM Closed_Request WHERE rid = ?";
+	static final String CUSTOMERS_WITH_BILL_LESS_THAN_100 = "SELECT Customer.fname, Customer.lname, Closed_Request.bill FROM Customer, Service_Request, Closed_Request WHERE Customer.id = Service_Request.customer_id AND Service_Request.rid = Closed_Request.rid AND bill < 100 ORDER BY fname;";
+	static final String CUSTOMERS_WITH_MORE_THAN_20_CARS = "SELECT Customer.fname, Customer.lname, COUNT(*) FROM Customer, Owns, Car WHERE Customer.id = Owns.customer_id AND Owns.car_vin = Car.vin GROUP BY Customer.id HAVING COUNT(*) > 20;";
+	static final String CARS_BEFORE_1995_WITH_50000_MILES = "SELECT DISTINCT Car.make, Car.model, Car.year FROM Car, Service_Request WHERE Car.vin = Service_Request.car_vin AND Car.year < 1995 AND Service_Request.odometer < 50001 ORDER BY Car.year;";
+	static final String K_CARS_WITH_THE_MOST_SERVICES = "Select make, model, year, COUNT(*) FROM Car, Service_Request WHERE vin = car_vin GROUP BY vin ORDER BY COUNT(*) DESC LIMIT ?";
+	static final String CUSTOMERS_BY_TOTAL_BILL = "SELECT Customer.fname, Customer.lname, SUM(Closed_Request.bill) FROM Customer, Service_Request, Closed_Request WHERE Customer.id = Service_Request.customer_id AND Service_Request.rid = Closed_Request.rid GROUP BY Customer.id ORDER BY SUM(bill) DESC;";
+	static final String CLOSED_BILLS =
+		"SELECT C.wid, C.mid, Car.make, to_char(C.date, 'YYYY-MM'), C.bill " +
+		"FROM Closed_Request C, Service_Request S, Car " +
+		"WHERE C.rid = S.rid AND S.car_vin = Car.vin";
+	static final String MECHANIC_EXPERIENCE = "SELECT id, experience FROM Mechanic";
+	static final String OPEN_REQUESTS =
+		"SELECT S.rid, S.car_vin, S.date, A.mid " +
+		"FROM Service_Request S LEFT JOIN Assignment A ON A.rid = S.rid " +
+		"WHERE NOT EXISTS (SELECT 1 FROM Closed_Request C WHERE C.rid = S.rid) " +
+		"ORDER BY S.date, S.rid";
+	static final String INSERT_ASSIGNMENT = "INSERT INTO Assignment VALUES (%d, %d)";
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -49,7 +95,15 @@ public class MechanicShop{
 			System.out.println ("Connection URL: " + url + "\n");
 			
 			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+	        Properties props = new Properties();
+	        props.setProperty("user", user);
+	        props.setProperty("password", passwd);
+	        //prepare the menu's statements on the server the first time they run
+	        props.setProperty("prepareThreshold", "1");
+	        this._connection = DriverManager.getConnection(url, props);
+	        this._url = url;
+	        this._user = user;
+	        this._passwd = passwd;
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -165,6 +219,98 @@ public class MechanicShop{
 		return result; 
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to get the prepared statement for one of the menu's queries,
+	 * preparing it on the menu connection the first time. The connection
+	 * is opened with prepareThreshold=1, so Postgres parses each of these
+	 * once per session rather than once per run. Callers must hold the
+	 * statement lock (_prepared), since a statement can't be run by two
+	 * threads at once.
+	 *
+	 * @param sql the query, with ? for each parameter
+	 * @return the prepared statement
+	 * @throws java.sql.SQLException when failed to prepare the query
+	 */
+	private PreparedStatement prepared(String sql) throws SQLException {
+		PreparedStatement stmt = this._prepared.get(sql);
+		if (stmt == null) {
+			stmt = this._connection.prepareStatement(sql);
+			this._prepared.put(sql, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Method to execute one of the menu's queries as a prepared statement
+	 * and output the results to standard out, like
+	 * executeQueryAndPrintResult.
+	 *
+	 * @param sql the query, with ? for each parameter
+	 * @param params the parameter values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executePreparedAndPrintResult (String sql, Object... params) throws SQLException {
+		List<List<String>> result;
+		List<String> header = new ArrayList<String>();
+		synchronized (this._prepared) {
+			PreparedStatement stmt = prepared(sql);
+			for (int i = 0; i < params.length; ++i)
+				stmt.setObject(i + 1, params[i]);
+			ResultSet rs = stmt.executeQuery ();
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			for (int i = 1; i <= rsmd.getColumnCount (); ++i)
+				header.add(rsmd.getColumnName(i));
+			result = readResult(rs);
+		}
+
+		//output them to standard out, header first
+		for (int i = 0; i < result.size(); ++i) {
+			if (i == 0) {
+				for (String column : header)
+					System.out.print(column + "\t");
+				System.out.println();
+			}
+			for (String value : result.get(i))
+				System.out.print (value + "\t");
+			System.out.println ();
+		}
+		return result.size();
+	}
+
+	/**
+	 * Method to execute one of the menu's queries as a prepared statement
+	 * and return the results as a list of records, like
+	 * executeQueryAndReturnResult.
+	 *
+	 * @param sql the query, with ? for each parameter
+	 * @param params the parameter values
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executePreparedAndReturnResult (String sql, Object... params) throws SQLException {
+		synchronized (this._prepared) {
+			PreparedStatement stmt = prepared(sql);
+			for (int i = 0; i < params.length; ++i)
+				stmt.setObject(i + 1, params[i]);
+			return readResult(stmt.executeQuery ());
+		}
+	}
+
+	//reads and closes a result set, as a list of records
+	private static List<List<String>> readResult(ResultSet rs) throws SQLException {
+		int numCol = rs.getMetaData ().getColumnCount ();
+		List<List<String>> result = new ArrayList<List<String>>();
+		while (rs.next()){
+			List<String> record = new ArrayList<String>();
+			for (int i=1; i<=numCol; ++i)
+				record.add(rs.getString (i));
+			result.add(record);
+		}
+		rs.close ();
+		return result;
+	}
+	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
@@ -208,6 +354,421 @@ public class MechanicShop{
 		return -1;
 	}
 
+	/**
+	 * Method to build the billing statistics sketches, if that has not
+	 * been done yet, with a single scan of Closed_Request. The scan runs
+	 * outside the lock on this object so the menu is never held up by it;
+	 * only one build runs at a time, and its result is published in one
+	 * step by publishBillingStatistics.
+	 *
+	 * @param connection the connection to scan Closed_Request with
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private void buildBillingStatistics(Connection connection) throws SQLException {
+		synchronized (this._billingBuild) {
+			synchronized (this) {
+				if (this._billingStats != null) return;
+			}
+			BillingSketches stats = new BillingSketches();
+			Statement stmt = connection.createStatement ();
+			ResultSet rs = stmt.executeQuery (CLOSED_BILLS);
+			while (rs.next()) {
+				stats.add(new BillingSketches.ClosedBill(
+					rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getInt(5)));
+			}
+			stmt.close ();
+			publishBillingStatistics(stats);
+		}
+	}
+
+	/**
+	 * Method to publish freshly built sketches. Closes recorded while they
+	 * were being built are added unless the scan already saw them: wids
+	 * are handed out in increasing order, so the scan saw exactly the
+	 * closes with a wid up to its maxWid.
+	 *
+	 * @param stats the sketches built from Closed_Request
+	 */
+	private synchronized void publishBillingStatistics(BillingSketches stats) {
+		for (BillingSketches.ClosedBill closed : this._pendingBills) {
+			if (closed.wid > stats.maxWid()) stats.add(closed);
+		}
+		this._pendingBills.clear();
+		this._billingStats = stats;
+	}
+
+	/**
+	 * Method to record a newly closed request in the billing statistics.
+	 * If the statistics are not published yet the close is kept until they
+	 * are, and a close the Closed_Request scan already saw is not counted
+	 * again.
+	 *
+	 * @param wid ID of the new Closed_Request row
+	 * @param mid mechanic who closed the request
+	 * @param make make of the serviced car
+	 * @param month month of the date stored in Closed_Request, as YYYY-MM
+	 * @param bill amount billed
+	 */
+	public void recordClosedBill(int wid, int mid, String make, String month, int bill) {
+		BillingSketches.ClosedBill closed = new BillingSketches.ClosedBill(wid, mid, make, month, bill);
+		synchronized (this) {
+			if (this._billingStats == null)
+				this._pendingBills.add(closed);
+			else if (wid > this._billingStats.maxWid())
+				this._billingStats.add(closed);
+		}
+	}
+
+	/**
+	 * Methods to read the billing statistics, building them first if
+	 * needed. Each returns freshly merged sketches, so callers can read
+	 * them without holding the lock.
+	 *
+	 * @throws java.sql.SQLException when failed to build the statistics
+	 */
+	public Map<Integer, BillSketch> billsByMechanic() throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.byMechanic();
+		}
+	}
+
+	public Map<String, BillSketch> billsByMake() throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.byMake();
+		}
+	}
+
+	public Map<String, BillSketch> billsByMonth() throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.byMonth();
+		}
+	}
+
+	public Map<String, BillSketch> mechanicBillTrend(int mid) throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.mechanicTrend(mid);
+		}
+	}
+
+	public Map<String, BillSketch> makeBillTrend(String make) throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.makeTrend(make);
+		}
+	}
+
+	public BillSketch allBills() throws SQLException {
+		buildBillingStatistics(this._connection);
+		synchronized (this) {
+			return this._billingStats.all();
+		}
+	}
+
+	/**
+	 * Method to build the open request work queue, if that has not been
+	 * done yet (and so after every restart). Open requests are the
+	 * Service_Request rows without a Closed_Request, and each keeps the
+	 * mechanic stored for it in Assignment. Open requests that have no
+	 * assignment yet (e.g. loaded from the CSV files) are then assigned
+	 * oldest first and written to Assignment in a single transaction, so
+	 * assignments never change across restarts. Writing those is left to
+	 * the menu: a build that may not assign (the warm-up) gives up instead,
+	 * and the first use from the menu builds the queue again. Like the
+	 * billing statistics, the build runs outside the lock on this object
+	 * and is published in one step; callers that need the queue while
+	 * another thread builds it wait for that build.
+	 *
+	 * @param connection the connection to read and store assignments with
+	 * @param assign whether open requests without a mechanic may be assigned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private void buildWorkQueue(Connection connection, boolean assign) throws SQLException {
+		synchronized (this._queueBuild) {
+			synchronized (this) {
+				if (this._workQueue != null) return;
+			}
+			WorkQueue queue = new WorkQueue();
+			Statement stmt = connection.createStatement ();
+			ResultSet rs = stmt.executeQuery (MECHANIC_EXPERIENCE);
+			while (rs.next()) {
+				queue.addMechanic(rs.getInt(1), rs.getInt(2));
+			}
+			rs = stmt.executeQuery (OPEN_REQUESTS);
+			//restore stored assignments first so the new ones see the real load
+			List<WorkQueue.OpenRequest> unassigned = new ArrayList<WorkQueue.OpenRequest>();
+			while (rs.next()) {
+				int mid = rs.getInt(4);
+				if (rs.wasNull())
+					unassigned.add(new WorkQueue.OpenRequest(rs.getInt(1), rs.getString(2), rs.getDate(3)));
+				else
+					queue.restore(rs.getInt(1), rs.getString(2), rs.getDate(3), mid);
+			}
+			if (!unassigned.isEmpty() && !assign) {
+				stmt.close ();
+				return;
+			}
+			for (WorkQueue.OpenRequest r : unassigned) {
+				int mid = queue.open(r.rid, r.vin, r.opened);
+				if (mid >= 0)
+					stmt.addBatch(String.format(INSERT_ASSIGNMENT, r.rid, mid));
+			}
+			if (!unassigned.isEmpty()) {
+				//all of the new assignments or none; hold the statement lock so
+				//no warm-up statement runs inside this transaction
+				synchronized (this._prepared) {
+					connection.setAutoCommit(false);
+					try {
+						stmt.executeBatch();
+						connection.commit();
+					}catch (SQLException e) {
+						connection.rollback();
+						stmt.close ();
+						throw e;
+					}finally {
+						connection.setAutoCommit(true);
+					}
+				}
+			}
+			stmt.close ();
+			publishWorkQueue(queue);
+		}
+	}
+
+	/**
+	 * Method to publish a freshly built work queue, adding the mechanics
+	 * that were added while it was being built.
+	 *
+	 * @param queue the queue built from the database
+	 */
+	private synchronized void publishWorkQueue(WorkQueue queue) {
+		for (Map.Entry<Integer, Integer> m : this._pendingMechanics.entrySet()) {
+			queue.addMechanic(m.getKey(), m.getValue());
+		}
+		this._pendingMechanics.clear();
+		this._workQueue = queue;
+	}
+
+	/**
+	 * Method to make a new mechanic available to the work queue. If the
+	 * queue is not published yet the mechanic is kept until it is.
+	 *
+	 * @param id the new mechanic's ID
+	 * @param experience years of experience
+	 */
+	public synchronized void recordMechanic(int id, int experience) {
+		if (this._workQueue == null)
+			this._pendingMechanics.put(id, experience);
+		else
+			this._workQueue.addMechanic(id, experience);
+	}
+
+	/**
+	 * Method to queue a new service request, assign it a mechanic and store
+	 * the assignment. Builds the queue first if needed; a build that
+	 * already saw the new row has assigned it, and that mechanic is kept.
+	 *
+	 * @param rid the new request's ID
+	 * @param vin car the request is for
+	 * @param opened date the request was made
+	 * @return the assigned mechanic ID, or -1 if there are no mechanics
+	 * @throws java.sql.SQLException when failed to store the assignment
+	 */
+	public int recordOpenRequest(int rid, String vin, Date opened) throws SQLException {
+		buildWorkQueue(this._connection, true);
+		int mid;
+		synchronized (this) {
+			if (this._workQueue.contains(rid)) return this._workQueue.assignedMechanic(rid);
+			mid = this._workQueue.open(rid, vin, opened);
+		}
+		if (mid >= 0)
+			executeUpdate(String.format(INSERT_ASSIGNMENT, rid, mid));
+		return mid;
+	}
+
+	/**
+	 * Method to remove a closed request from the work queue and free its
+	 * mechanic.
+	 *
+	 * @param rid the closed request's ID
+	 * @throws java.sql.SQLException when failed to build the queue
+	 */
+	public void recordClosedRequest(int rid) throws SQLException {
+		buildWorkQueue(this._connection, true);
+		synchronized (this) {
+			this._workQueue.close(rid);
+		}
+	}
+
+	/**
+	 * @param rid an open request's ID
+	 * @return the mechanic assigned to it, or -1 if none
+	 * @throws java.sql.SQLException when failed to build the queue
+	 */
+	public int assignedMechanic(int rid) throws SQLException {
+		buildWorkQueue(this._connection, true);
+		synchronized (this) {
+			return this._workQueue.assignedMechanic(rid);
+		}
+	}
+
+	/**
+	 * @param vin car to list the open requests of, or blank for all cars
+	 * @return a copy of the open requests, oldest first
+	 * @throws java.sql.SQLException when failed to build the queue
+	 */
+	public List<WorkQueue.OpenRequest> openRequests(String vin) throws SQLException {
+		buildWorkQueue(this._connection, true);
+		synchronized (this) {
+			return vin.isEmpty() ? this._workQueue.oldestFirst() : this._workQueue.forCar(vin);
+		}
+	}
+
+	/**
+	 * Method to start the warm-up thread. The first run of each menu
+	 * operation is otherwise slow because the JIT, the menu connection's
+	 * statements, the server's buffer cache and our in memory indexes are
+	 * all cold. The thread is a daemon, so it never blocks exiting, and it
+	 * always reports how long it took.
+	 */
+	public void startWarmUp() {
+		Thread warmUp = new Thread(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					warmUp();
+				}finally {
+					System.out.printf("\n(Warm-up finished in %d ms)\n",
+						(System.nanoTime() - start) / 1000000);
+				}
+			}
+		}, "warm-up");
+		warmUp.setDaemon(true);
+		warmUp.start();
+	}
+
+	/**
+	 * Method to run the warm-up. Plan and catalog caches belong to one
+	 * Postgres backend, so every menu query is prepared on the menu
+	 * connection itself: lookups are run once with a key that matches
+	 * nothing, which prepares them on the server; reports are only
+	 * described (parsed by the server, not run), so the menu never waits
+	 * behind a full report. Each takes the statement lock only for itself.
+	 * The rest runs on a second connection, closed when done: tables and
+	 * indexes are loaded into the shared buffer cache with pg_prewarm when
+	 * that extension is installed, and the billing statistics and work
+	 * queue are built ahead of first use. The warm-up only reads: if some
+	 * open requests still need a mechanic, the queue is left for the menu
+	 * to build and store. Each step is independent, a failure is reported
+	 * and skipped.
+	 */
+	private void warmUp() {
+		String[] relations = {
+			"service_request", "service_request_pkey",
+			"closed_request", "closed_request_pkey",
+			"car", "car_pkey", "customer", "customer_pkey",
+			"mechanic", "mechanic_pkey", "owns", "assignment"
+		};
+		//lookups, with parameters that match nothing
+		Object[][] lookups = {
+			{ MAX_CUSTOMER_ID }, { MAX_MECHANIC_ID }, { MAX_SERVICE_REQUEST_ID }, { MAX_CLOSED_REQUEST_ID },
+			{ CUSTOMER_BY_ID, -1 },
+			{ MECHANIC_BY_ID, -1 },
+			{ CAR_BY_VIN, "" },
+			{ SERVICE_REQUEST_BY_ID, -1 },
+			{ SERVICE_REQUEST_MAKE_BY_ID, -1 },
+			{ CLOSED_REQUEST_BY_RID, -1 },
+			{ K_CARS_WITH_THE_MOST_SERVICES, 0 }
+		};
+		String[] reports = {
+			CUSTOMERS_WITH_BILL_LESS_THAN_100,
+			CUSTOMERS_WITH_MORE_THAN_20_CARS,
+			CARS_BEFORE_1995_WITH_50000_MILES,
+			CUSTOMERS_BY_TOTAL_BILL
+		};
+
+		for (Object[] lookup : lookups) {
+			try {
+				executePreparedAndReturnResult((String) lookup[0],
+					Arrays.copyOfRange(lookup, 1, lookup.length));
+			}catch (SQLException | RuntimeException e) {
+				System.err.println("Warm-up: " + e.getMessage());
+			}
+		}
+		for (String report : reports) {
+			try {
+				synchronized (this._prepared) {
+					prepared(report).getMetaData();
+				}
+			}catch (SQLException | RuntimeException e) {
+				System.err.println("Warm-up: " + e.getMessage());
+			}
+		}
+
+		Connection connection;
+		try {
+			connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+		}catch (SQLException e) {
+			System.err.println("Warm-up: " + e.getMessage());
+			return;
+		}
+
+		boolean prewarm = false;
+		try {
+			prewarm = warmUpQuery(connection, "SELECT 1 FROM pg_extension WHERE extname = 'pg_prewarm'") > 0;
+		}catch (SQLException | RuntimeException e) {
+			System.err.println("Warm-up: " + e.getMessage());
+		}
+		for (int i = 0; prewarm && i < relations.length; ++i) {
+			try {
+				warmUpQuery(connection, String.format("SELECT pg_prewarm('%s')", relations[i]));
+			}catch (SQLException | RuntimeException e) {
+				System.err.println("Warm-up: " + e.getMessage());
+			}
+		}
+
+		try {
+			buildBillingStatistics(connection);
+			allBills().quantile(0.5);
+		}catch (SQLException | RuntimeException e) {
+			System.err.println("Warm-up: " + e.getMessage());
+		}
+		try {
+			buildWorkQueue(connection, false);
+		}catch (SQLException | RuntimeException e) {
+			System.err.println("Warm-up: " + e.getMessage());
+		}
+
+		try {
+			connection.close ();
+		}catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	/**
+	 * Method to run a warm-up query on the given connection and count the
+	 * rows it returns.
+	 *
+	 * @param connection the warm-up connection
+	 * @param query the input query string
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private static int warmUpQuery(Connection connection, String query) throws SQLException {
+		Statement stmt = connection.createStatement ();
+		ResultSet rs = stmt.executeQuery (query);
+		int rowCount = 0;
+		while (rs.next()) {
+			++rowCount;
+		}
+		stmt.close ();
+		return rowCount;
+	}
+
 	/**
 	 * Method to close the physical connection if it is open.
 	 */
@@ -254,6 +815,7 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			esql.startWarmUp();
 			
 			boolean keepon = true;
 			while(keepon){
@@ -269,7 +831,9 @@ public class MechanicShop{
 				System.out.println("8. ListCarsBefore1995With50000Milles");
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
+				System.out.println("11. BillingStatistics");
+				System.out.println("12. ListOpenServiceRequests");
+				System.out.println("13. < EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -285,7 +849,9 @@ public class MechanicShop{
 					case 8: ListCarsBefore1995With50000Milles(esql); break;
 					case 9: ListKCarsWithTheMostServices(esql); break;
 					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+					case 11: BillingStatistics(esql); break;
+					case 12: ListOpenServiceRequests(esql); break;
+					case 13: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -329,8 +895,8 @@ public class MechanicShop{
 
 	    try{
             // create new customer ID
-            String ID_query = "SELECT MAX(id) FROM Customer";
-            List<List<String>> rs = esql.executeQueryAndReturnResult(ID_query);
+            String ID_query = MAX_CUSTOMER_ID;
+            List<List<String>> rs = esql.executePreparedAndReturnResult(ID_query);
             newID = Integer.parseInt(rs.get(0).get(0)) + 1;
 
             // get customer information
@@ -363,9 +929,7 @@ public class MechanicShop{
             // execute the query and update the DB
             esql.executeUpdate(query);
             // test update (sanity check)
-            String test_query = "SELECT * FROM Customer WHERE id = ";
-            test_query += Integer.toString(newID);
-            esql.executeQueryAndPrintResult(test_query);
+            esql.executePreparedAndPrintResult(CUSTOMER_BY_ID, newID);
            
 	    }catch(Exception e)
 	    {
@@ -381,8 +945,8 @@ public class MechanicShop{
         String exp;   // integer, 0 <= years < 100
         try{
             // create new mechanic ID
-            String ID_query = "SELECT MAX(id) FROM Mechanic";
-            List<List<String>> rs = esql.executeQueryAndReturnResult(ID_query);
+            String ID_query = MAX_MECHANIC_ID;
+            List<List<String>> rs = esql.executePreparedAndReturnResult(ID_query);
             newID = Integer.parseInt(rs.get(0).get(0)) + 1;
 
             // get mechanic information
@@ -404,10 +968,10 @@ public class MechanicShop{
 
             // execute the query and update the DB
             esql.executeUpdate(query);
+            // make the new mechanic available to the work queue
+            esql.recordMechanic(newID, Integer.parseInt(exp.trim()));
             // test update (sanity check)
-            String test_query = "SELECT * FROM Mechanic WHERE id = ";
-            test_query += Integer.toString(newID);
-            esql.executeQueryAndPrintResult(test_query);
+            esql.executePreparedAndPrintResult(MECHANIC_BY_ID, newID);
            
 	    }catch(Exception e)
 	    {
@@ -447,8 +1011,7 @@ public class MechanicShop{
             // execute the query and update the DB
             esql.executeUpdate(query);
             // test update (sanity check)
-            String test_query = "SELECT * FROM Car WHERE vin = \'" +vin+ "\'";
-            esql.executeQueryAndPrintResult(test_query);
+            esql.executePreparedAndPrintResult(CAR_BY_VIN, vin);
        
 	    }catch(Exception e)
 	    {
@@ -465,8 +1028,8 @@ public class MechanicShop{
         String complain; // text
         try{
             // create new user ID
-            String ID_query = "SELECT MAX(rid) FROM Service_Request";
-            List<List<String>> rs = esql.executeQueryAndReturnResult(ID_query);
+            String ID_query = MAX_SERVICE_REQUEST_ID;
+            List<List<String>> rs = esql.executePreparedAndReturnResult(ID_query);
             newRID = Integer.parseInt(rs.get(0).get(0)) + 1;
             System.out.println(newRID);
 
@@ -495,9 +1058,19 @@ public class MechanicShop{
 
             // execute the query and update the DB
             esql.executeUpdate(query);
+            // queue the new request and assign it a mechanic; the request is
+            // inserted either way, so a failure here is only reported
+            try {
+                int assigned = esql.recordOpenRequest(newRID, vin,
+                    new SimpleDateFormat("MM/dd/yyyy").parse(date));
+                if (assigned >= 0)
+                    System.out.println("Assigned to mechanic " + assigned);
+            }catch(Exception e)
+            {
+                System.err.println("Could not assign a mechanic: " + e.getMessage());
+            }
             // test update (sanity check)
-            String test_query = "SELECT * FROM Service_Request WHERE rid = " +Integer.toString(newRID);
-            esql.executeQueryAndPrintResult(test_query);
+            esql.executePreparedAndPrintResult(SERVICE_REQUEST_BY_ID, newRID);
        
 	    }catch(Exception e)
 	    {
@@ -510,42 +1083,55 @@ public class MechanicShop{
 	int rid = 0; 	//service request ID reference
 	int wid = 0;	//new ID for the closed service request (wid + 1)
 	int bill; 	//amount billed for this service request 
+	String make;	//make of the car the service request is for
 	String comment; //comment for the closed service request
 	String date;
 	String ID_query; 
 	List<List<String>> rs;  
 	try {
-		//get current date 
-		date = new SimpleDateFormat("MM/dd/yyyy").format(Calendar.getInstance().getTime());  
-
-		//get mechanic ID
-		System.out.println("\tEnter mechanic ID: "); 
-		mid = Integer.parseInt(in.readLine());
-		ID_query = String.format("SELECT * FROM Mechanic WHERE %d = id", mid); 
-		rs = esql.executeQueryAndReturnResult(ID_query); 
-		if (rs.size() == 0) {
-			System.out.println("Invalid mechanic ID"); 
-			return; 
-		}
-		 
+		//get current date, and its month for the billing statistics
+		Date now = Calendar.getInstance().getTime(); 
+		date = new SimpleDateFormat("MM/dd/yyyy").format(now);  
+		String month = new SimpleDateFormat("yyyy-MM").format(now); 
+
 		//get service request ID
 		System.out.println("\tEnter service request ID: "); 
 		rid = Integer.parseInt(in.readLine());
 		//check whether service request actually exists before closing
-		ID_query = String.format("SELECT * FROM Service_Request WHERE %d = rid", rid); 
-		rs = esql.executeQueryAndReturnResult(ID_query); 
+		rs = esql.executePreparedAndReturnResult(SERVICE_REQUEST_MAKE_BY_ID, rid); 
 		if (rs.size() == 0) {
 			System.out.println("Service Request does not exist with that ID"); 
 			return; 
 		} 
+		make = rs.get(0).get(1); 
 		//check whether the service request has been closed already
-		ID_query = String.format("SELECT * FROM Closed_Request WHERE %d = rid", rid); 
-		rs = esql.executeQueryAndReturnResult(ID_query); 
+		rs = esql.executePreparedAndReturnResult(CLOSED_REQUEST_BY_RID, rid); 
 		if (rs.size() > 0) {
 			System.out.println("Service request with that ID has already been closed"); 
 			return; 
 		} 	
 		
+		//get mechanic ID, defaulting to the one the work queue assigned;
+		//if the queue can't be read the ID has to be typed in as before
+		int assigned = -1; 
+		try {
+			assigned = esql.assignedMechanic(rid); 
+		}
+		catch(Exception e) {
+			System.err.println("Work queue unavailable: " + e.getMessage()); 
+		}
+		if (assigned >= 0) 
+			System.out.println("\tEnter mechanic ID (blank for assigned mechanic " + assigned + "): "); 
+		else 
+			System.out.println("\tEnter mechanic ID: "); 
+		String mid_input = in.readLine().trim(); 
+		mid = mid_input.isEmpty() && assigned >= 0 ? assigned : Integer.parseInt(mid_input);
+		rs = esql.executePreparedAndReturnResult(MECHANIC_BY_ID, mid); 
+		if (rs.size() == 0) {
+			System.out.println("Invalid mechanic ID"); 
+			return; 
+		}
+		
 		//get bill amount for this service request
 		System.out.println("\tEnter bill amount: "); 
 		bill = Integer.parseInt(in.readLine()); 
@@ -555,8 +1141,8 @@ public class MechanicShop{
 		comment = in.readLine(); 
 
 		//create new closed request ID (WID) 
-		ID_query = "SELECT MAX(wid) FROM Closed_Request"; 
-		rs = esql.executeQueryAndReturnResult(ID_query); 
+		ID_query = MAX_CLOSED_REQUEST_ID; 
+		rs = esql.executePreparedAndReturnResult(ID_query); 
 		wid = Integer.parseInt(rs.get(0).get(0)) + 1; 
 		System.out.println(wid);
 
@@ -572,10 +1158,23 @@ public class MechanicShop{
 		//execute query 
 		esql.executeUpdate(query); 
 		
+		//keep the billing statistics and work queue current; the request is
+		//closed either way, so a failure here is only reported
+		try {
+			esql.recordClosedBill(wid, mid, make, month, bill); 
+		}
+		catch(Exception e) {
+			System.err.println("Could not update billing statistics: " + e.getMessage()); 
+		}
+		try {
+			esql.recordClosedRequest(rid); 
+		}
+		catch(Exception e) {
+			System.err.println("Could not update work queue: " + e.getMessage()); 
+		}
+		
 		// test update (sanity check)
-        String test_query = "SELECT * FROM Closed_Request WHERE rid = ";
-        test_query += Integer.toString(rid);
-        esql.executeQueryAndPrintResult(test_query);
+        esql.executePreparedAndPrintResult(CLOSED_REQUEST_BY_RID, rid);
 	}
 	catch(Exception e) {
 		System.err.println(e.getMessage()); 
@@ -588,8 +1187,8 @@ public class MechanicShop{
 		String total_msg = ""; 
 		List<List<String>> rs; 
 		try {
-			query = "SELECT Customer.fname, Customer.lname, Closed_Request.bill FROM Customer, Service_Request, Closed_Request WHERE Customer.id = Service_Request.customer_id AND Service_Request.rid = Closed_Request.rid AND bill < 100 ORDER BY fname;"; 
-			rs = esql.executeQueryAndReturnResult(query); 
+			query = CUSTOMERS_WITH_BILL_LESS_THAN_100; 
+			rs = esql.executePreparedAndReturnResult(query); 
 			for (int i = 0; i < rs.size(); ++i) {
 				result += "\nName: " + rs.get(i).get(0) + rs.get(i).get(1) + "\n"; 
 				result += "Bill: " + rs.get(i).get(2) + "\n"; 	
@@ -610,8 +1209,8 @@ public class MechanicShop{
 		String total_msg = "";   
 		List<List<String>> rs; 
 		try {
-			query = "SELECT Customer.fname, Customer.lname, COUNT(*) FROM Customer, Owns, Car WHERE Customer.id = Owns.customer_id AND Owns.car_vin = Car.vin GROUP BY Customer.id HAVING COUNT(*) > 20;"; 
-			rs = esql.executeQueryAndReturnResult(query); 
+			query = CUSTOMERS_WITH_MORE_THAN_20_CARS; 
+			rs = esql.executePreparedAndReturnResult(query); 
 			for (int i = 0; i < rs.size(); ++i) {
 				result += "\nName: " + rs.get(i).get(0) + rs.get(i).get(1) + "\n"; 
 				result += "Number of cars: " + rs.get(i).get(2) + "\n"; 
@@ -631,8 +1230,8 @@ public class MechanicShop{
 		String total_msg = ""; 
 		List<List<String>> rs; 
 		try {
-			query = "SELECT DISTINCT Car.make, Car.model, Car.year FROM Car, Service_Request WHERE Car.vin = Service_Request.car_vin AND Car.year < 1995 AND Service_Request.odometer < 50001 ORDER BY Car.year;"; 
-			rs = esql.executeQueryAndReturnResult(query); 
+			query = CARS_BEFORE_1995_WITH_50000_MILES; 
+			rs = esql.executePreparedAndReturnResult(query); 
 			for (int i = 0; i < rs.size(); ++i) {
 				result += "\nMake: " + rs.get(i).get(0) + " "; 
 				result += "Model: " + rs.get(i).get(1) + " "; 
@@ -650,7 +1249,6 @@ public class MechanicShop{
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
 		int k;
 		String output = "";
-		String query;
 		List<List<String>> rs;  
 
 		try {
@@ -658,8 +1256,7 @@ public class MechanicShop{
 			k = Integer.parseInt(in.readLine());
 			
 
-			query = String.format("Select make, model, year, COUNT(*) FROM Car, Service_Request WHERE vin = car_vin GROUP BY vin ORDER BY COUNT(*) DESC LIMIT %d", k); 
-			rs = esql.executeQueryAndReturnResult(query); 
+			rs = esql.executePreparedAndReturnResult(K_CARS_WITH_THE_MOST_SERVICES, k); 
 
 			for (int i = 0; i < rs.size(); ++i) {
 				output += "Pos: "  + Integer.toString(i+1) + "\n";
@@ -684,8 +1281,8 @@ public class MechanicShop{
 		String result = ""; 
 		List<List<String>> rs; 
 		try {
-			query = "SELECT Customer.fname, Customer.lname, SUM(Closed_Request.bill) FROM Customer, Service_Request, Closed_Request WHERE Customer.id = Service_Request.customer_id AND Service_Request.rid = Closed_Request.rid GROUP BY Customer.id ORDER BY SUM(bill) DESC;"; 
-			rs = esql.executeQueryAndReturnResult(query); 
+			query = CUSTOMERS_BY_TOTAL_BILL; 
+			rs = esql.executePreparedAndReturnResult(query); 
 			for (int i = 0; i < rs.size(); ++i) {
 				result += "\nName: " + rs.get(i).get(0) + rs.get(i).get(1) + "\n"; 
 				result += "Total bill: " + rs.get(i).get(2) + "\n"; 
@@ -697,4 +1294,426 @@ public class MechanicShop{
 		}
 	}
 	
+	public static void BillingStatistics(MechanicShop esql){//11
+		String result = ""; 
+		String label = ""; 
+		Map<?, BillSketch> groups; 
+		try {
+			System.out.println("\t1. By mechanic"); 
+			System.out.println("\t2. By make"); 
+			System.out.println("\t3. By month"); 
+			System.out.println("\t4. All bills"); 
+			int choice = readChoice(); 
+
+			switch (choice) {
+				case 1: 
+					System.out.println("\tEnter mechanic ID for a monthly trend (blank for all mechanics): "); 
+					String mid = in.readLine().trim(); 
+					groups = mid.isEmpty() ? esql.billsByMechanic() : esql.mechanicBillTrend(Integer.parseInt(mid)); 
+					label = mid.isEmpty() ? "Mechanic " : ""; 
+					break; 
+				case 2: 
+					System.out.println("\tEnter make for a monthly trend (blank for all makes): "); 
+					String make = in.readLine().trim(); 
+					groups = make.isEmpty() ? esql.billsByMake() : esql.makeBillTrend(make); 
+					break; 
+				case 3: groups = esql.billsByMonth(); break; 
+				case 4: 
+					groups = Collections.singletonMap("All", esql.allBills()); 
+					break; 
+				default: 
+					System.out.println("Invalid choice"); 
+					return; 
+			}
+
+			for (Map.Entry<?, BillSketch> e : groups.entrySet()) {
+				BillSketch s = e.getValue(); 
+				result += String.format("\n%s%s\n", label, e.getKey()); 
+				result += String.format("Count: %d\n", s.count()); 
+				result += String.format("Median: %.0f  P90: %.0f  P99: %.0f\n", 
+					s.quantile(0.5), s.quantile(0.9), s.quantile(0.99)); 
+			}
+			System.out.println(result); 
+			System.out.printf("Quantiles are within %.0f%% of the exact bill\n\n", 
+				BillSketch.RELATIVE_ACCURACY * 100); 
+		}
+		catch (Exception e) {
+			System.out.println(e.getMessage()); 
+		}
+	}
+
+	/**
+	 * Bill distributions grouped by mechanic and by car make, each split
+	 * further by the month the request was closed (YYYY-MM). Every
+	 * (group, month) pair keeps its own BillSketch for the trend views, and
+	 * add also keeps a running sketch per mechanic, per make, per month and
+	 * overall, so add is O(1) and every read is a copy of the sketches it
+	 * returns, never a merge over the months of history. Every method that
+	 * reads returns copies, never the sketches being added to.
+	 */
+	static class BillingSketches {
+		//one Closed_Request row, as far as the sketches are concerned
+		static class ClosedBill {
+			final int wid; 
+			final int mid; 
+			final String make; 
+			final String month; 
+			final int bill; 
+
+			ClosedBill(int wid, int mid, String make, String month, int bill) {
+				this.wid = wid; 
+				this.mid = mid; 
+				this.make = make; 
+				this.month = month; 
+				this.bill = bill; 
+			}
+		}
+
+		//month by month, for the trend views
+		private final Map<Integer, Map<String, BillSketch>> mechanicMonths = new TreeMap<Integer, Map<String, BillSketch>>(); 
+		private final Map<String, Map<String, BillSketch>> makeMonths = new TreeMap<String, Map<String, BillSketch>>(); 
+		//running totals over all months
+		private final Map<Integer, BillSketch> byMechanic = new TreeMap<Integer, BillSketch>(); 
+		private final Map<String, BillSketch> byMake = new TreeMap<String, BillSketch>(); 
+		private final Map<String, BillSketch> byMonth = new TreeMap<String, BillSketch>(); 
+		private final BillSketch all = new BillSketch(); 
+
+		private int maxWid = 0; 
+
+		/**
+		 * Adds one closed request to every group it belongs to.
+		 */
+		void add(ClosedBill closed) {
+			String make = closed.make.trim(); 
+			sketch(months(mechanicMonths, closed.mid), closed.month).add(closed.bill); 
+			sketch(months(makeMonths, make), closed.month).add(closed.bill); 
+			sketch(byMechanic, closed.mid).add(closed.bill); 
+			sketch(byMake, make).add(closed.bill); 
+			sketch(byMonth, closed.month).add(closed.bill); 
+			all.add(closed.bill); 
+			maxWid = Math.max(maxWid, closed.wid); 
+		}
+
+		/**
+		 * @return the largest wid added so far
+		 */
+		int maxWid() {
+			return maxWid; 
+		}
+
+		/**
+		 * @return every bill of each mechanic, all months together
+		 */
+		Map<Integer, BillSketch> byMechanic() {
+			return copy(byMechanic); 
+		}
+
+		/**
+		 * @return every bill of each make, all months together
+		 */
+		Map<String, BillSketch> byMake() {
+			return copy(byMake); 
+		}
+
+		/**
+		 * @return every bill, month by month
+		 */
+		Map<String, BillSketch> byMonth() {
+			return copy(byMonth); 
+		}
+
+		/**
+		 * @return the bills of one mechanic, month by month
+		 */
+		Map<String, BillSketch> mechanicTrend(int mid) {
+			Map<String, BillSketch> months = mechanicMonths.get(mid); 
+			return months == null ? new TreeMap<String, BillSketch>() : copy(months); 
+		}
+
+		/**
+		 * @return the bills of one make, month by month
+		 */
+		Map<String, BillSketch> makeTrend(String make) {
+			Map<String, BillSketch> months = makeMonths.get(make); 
+			return months == null ? new TreeMap<String, BillSketch>() : copy(months); 
+		}
+
+		/**
+		 * @return a sketch of every bill
+		 */
+		BillSketch all() {
+			BillSketch copy = new BillSketch(); 
+			copy.merge(all); 
+			return copy; 
+		}
+
+		private static <K> Map<K, BillSketch> copy(Map<K, BillSketch> sketches) {
+			Map<K, BillSketch> copy = new TreeMap<K, BillSketch>(); 
+			for (Map.Entry<K, BillSketch> e : sketches.entrySet()) 
+				sketch(copy, e.getKey()).merge(e.getValue()); 
+			return copy; 
+		}
+
+		private static <K> Map<String, BillSketch> months(Map<K, Map<String, BillSketch>> groups, K key) {
+			Map<String, BillSketch> months = groups.get(key); 
+			if (months == null) {
+				months = new TreeMap<String, BillSketch>(); 
+				groups.put(key, months); 
+			}
+			return months; 
+		}
+
+		private static <K> BillSketch sketch(Map<K, BillSketch> sketches, K key) {
+			BillSketch s = sketches.get(key); 
+			if (s == null) {
+				s = new BillSketch(); 
+				sketches.put(key, s); 
+			}
+			return s; 
+		}
+	}
+
+	/**
+	 * Mergeable streaming quantile sketch for bills, using logarithmic
+	 * buckets (the DDSketch scheme). A bill x falls into bucket
+	 * ceil(log_gamma(x)) with gamma = (1 + a) / (1 - a), so any quantile
+	 * returned is within a relative error a = RELATIVE_ACCURACY of the
+	 * exact bill at that rank. Only the buckets between the smallest and
+	 * largest bill seen are stored (about 150 for bills of 50 to 1000), and
+	 * never more than the ~1100 that cover every positive int, so memory per
+	 * sketch is bounded, add is O(1) and quantile is a walk over that
+	 * array. Two sketches merge by adding their bucket counts.
+	 */
+	static class BillSketch {
+		static final double RELATIVE_ACCURACY = 0.01; 
+		private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY); 
+		private static final double LOG_GAMMA = Math.log(GAMMA); 
+
+		//counts[i] is the number of bills in bucket offset + i
+		private long[] counts = new long[0]; 
+		private int offset = 0; 
+		private long count = 0; 
+		private int min = Integer.MAX_VALUE; 
+		private int max = 0; 
+
+		void add(int bill) {
+			if (bill < 1) bill = 1; //bills are _PINTEGER
+			int bucket = (int) Math.ceil(Math.log(bill) / LOG_GAMMA); 
+			cover(bucket, bucket); 
+			counts[bucket - offset]++; 
+			count++; 
+			min = Math.min(min, bill); 
+			max = Math.max(max, bill); 
+		}
+
+		void merge(BillSketch other) {
+			if (other.count == 0) return; 
+			cover(other.offset, other.offset + other.counts.length - 1); 
+			for (int i = 0; i < other.counts.length; ++i) 
+				counts[other.offset + i - offset] += other.counts[i]; 
+			count += other.count; 
+			min = Math.min(min, other.min); 
+			max = Math.max(max, other.max); 
+		}
+
+		long count() {
+			return count; 
+		}
+
+		/**
+		 * @param q quantile between 0 and 1, e.g. 0.5 for the median
+		 * @return the approximate bill at quantile q, or 0 if the sketch is empty
+		 */
+		double quantile(double q) {
+			if (count == 0) return 0; 
+			long rank = (long) Math.floor(q * (count - 1)); 
+			long seen = 0; 
+			int i = 0; 
+			for (; i < counts.length - 1; ++i) {
+				seen += counts[i]; 
+				if (seen > rank) break; 
+			}
+			//middle of the bucket, which keeps the relative error below a
+			double value = 2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1); 
+			return Math.max(min, Math.min(max, value)); 
+		}
+
+		//grows counts so it covers buckets lo to hi
+		private void cover(int lo, int hi) {
+			if (counts.length == 0) {
+				counts = new long[hi - lo + 1]; 
+				offset = lo; 
+				return; 
+			}
+			int from = Math.min(lo, offset); 
+			int to = Math.max(hi, offset + counts.length - 1); 
+			if (from == offset && to == offset + counts.length - 1) return; 
+			long[] grown = new long[to - from + 1]; 
+			System.arraycopy(counts, 0, grown, offset - from, counts.length); 
+			counts = grown; 
+			offset = from; 
+		}
+	}
+	
+	public static void ListOpenServiceRequests(MechanicShop esql){//12
+		String result = ""; 
+		try {
+			System.out.println("\tEnter car VIN (blank for all cars): "); 
+			String vin = in.readLine().trim(); 
+
+			List<WorkQueue.OpenRequest> open = esql.openRequests(vin); 
+			for (WorkQueue.OpenRequest r : open) {
+				result += "\nRID: " + r.rid + "\n"; 
+				result += "Car: " + r.vin + "\n"; 
+				result += "Opened: " + new SimpleDateFormat("MM/dd/yyyy").format(r.opened) + "\n"; 
+				result += "Assigned mechanic: " + r.mid + "\n"; 
+			}
+			System.out.println("Total open service requests: " + open.size()); 
+			System.out.println(result); 
+		}
+		catch (Exception e) {
+			System.out.println(e.getMessage()); 
+		}
+	}
+
+	/**
+	 * In memory index of the open service requests, by age and by car,
+	 * together with the scheduler that assigns them to mechanics. A
+	 * mechanic's cost is (load + 1) / (1 + experience / 10), where load is
+	 * the number of open requests assigned to them, so experienced
+	 * mechanics take proportionally more of the work. Mechanics are kept
+	 * in a TreeSet ordered by cost, so open and close are O(log n).
+	 */
+	static class WorkQueue {
+		static class OpenRequest {
+			final int rid; 
+			final String vin; 
+			final Date opened; 
+			int mid; 
+
+			OpenRequest(int rid, String vin, Date opened) {
+				this.rid = rid; 
+				this.vin = vin; 
+				this.opened = opened; 
+			}
+		}
+
+		static class Mechanic {
+			final int id; 
+			final int experience; 
+			int load = 0; 
+
+			Mechanic(int id, int experience) {
+				this.id = id; 
+				this.experience = experience; 
+			}
+
+			double cost() {
+				return (load + 1) / (1 + experience / 10.0); 
+			}
+		}
+
+		private static final Comparator<OpenRequest> BY_AGE = new Comparator<OpenRequest>() {
+			public int compare(OpenRequest a, OpenRequest b) {
+				int c = a.opened.compareTo(b.opened); 
+				return c != 0 ? c : Integer.compare(a.rid, b.rid); 
+			}
+		};
+
+		private static final Comparator<Mechanic> BY_COST = new Comparator<Mechanic>() {
+			public int compare(Mechanic a, Mechanic b) {
+				int c = Double.compare(a.cost(), b.cost()); 
+				return c != 0 ? c : Integer.compare(a.id, b.id); 
+			}
+		};
+
+		private final Map<Integer, OpenRequest> byRid = new HashMap<Integer, OpenRequest>(); 
+		private final TreeSet<OpenRequest> byAge = new TreeSet<OpenRequest>(BY_AGE); 
+		private final Map<String, TreeSet<OpenRequest>> byCar = new HashMap<String, TreeSet<OpenRequest>>(); 
+		private final Map<Integer, Mechanic> mechanics = new HashMap<Integer, Mechanic>(); 
+		private final TreeSet<Mechanic> schedule = new TreeSet<Mechanic>(BY_COST); 
+
+		void addMechanic(int id, int experience) {
+			if (mechanics.containsKey(id)) return; 
+			Mechanic m = new Mechanic(id, experience); 
+			mechanics.put(id, m); 
+			schedule.add(m); 
+		}
+
+		/**
+		 * Adds a request to the queue and assigns it to the cheapest mechanic.
+		 *
+		 * @return the assigned mechanic ID, or -1 if there are no mechanics
+		 */
+		int open(int rid, String vin, Date opened) {
+			if (byRid.containsKey(rid)) return byRid.get(rid).mid; 
+			return restore(rid, vin, opened, schedule.isEmpty() ? -1 : schedule.first().id); 
+		}
+
+		/**
+		 * Adds a request to the queue with an assignment made earlier.
+		 *
+		 * @return the assigned mechanic ID
+		 */
+		int restore(int rid, String vin, Date opened, int mid) {
+			if (byRid.containsKey(rid)) return byRid.get(rid).mid; 
+			OpenRequest r = new OpenRequest(rid, vin.trim(), opened); 
+			r.mid = mid; 
+			Mechanic m = mechanics.get(mid); 
+			if (m != null) {
+				schedule.remove(m); 
+				m.load++; 
+				schedule.add(m); 
+			}
+			byRid.put(rid, r); 
+			byAge.add(r); 
+			TreeSet<OpenRequest> car = byCar.get(r.vin); 
+			if (car == null) {
+				car = new TreeSet<OpenRequest>(BY_AGE); 
+				byCar.put(r.vin, car); 
+			}
+			car.add(r); 
+			return r.mid; 
+		}
+
+		/**
+		 * Removes a closed request and frees its mechanic.
+		 */
+		void close(int rid) {
+			OpenRequest r = byRid.remove(rid); 
+			if (r == null) return; 
+			byAge.remove(r); 
+			TreeSet<OpenRequest> car = byCar.get(r.vin); 
+			car.remove(r); 
+			if (car.isEmpty()) byCar.remove(r.vin); 
+			Mechanic m = mechanics.get(r.mid); 
+			if (m != null) {
+				schedule.remove(m); 
+				m.load--; 
+				schedule.add(m); 
+			}
+		}
+
+		boolean contains(int rid) {
+			return byRid.containsKey(rid); 
+		}
+
+		/**
+		 * @return the mechanic assigned to an open request, or -1 if none
+		 */
+		int assignedMechanic(int rid) {
+			OpenRequest r = byRid.get(rid); 
+			return r == null ? -1 : r.mid; 
+		}
+
+		List<OpenRequest> oldestFirst() {
+			return new ArrayList<OpenRequest>(byAge); 
+		}
+
+		List<OpenRequest> forCar(String vin) {
+			TreeSet<OpenRequest> car = byCar.get(vin); 
+			return car == null ? new ArrayList<OpenRequest>() : new ArrayList<OpenRequest>(car); 
+		}
+	}
+	
 }
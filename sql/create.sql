@@ -4,6 +4,7 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Assignment CASCADE;--OK
 
 
 -------------
@@ -87,6 +88,15 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+CREATE TABLE Assignment
+(
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	PRIMARY KEY (rid),
+	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+);
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------